@@ -33,13 +33,15 @@ public class PrepBucketForInit {
   private static int objects_in_bucket = 0;
 
   public static void main(String[] args) throws IOException {
-    if(args.length != 5) {
+    if(args.length < 5 || args.length > 6) {
       LOG.error("Invalid number of arguments. The recovery tool requires the following arguments in order:\n" +
         "1. The S3 endpoint URL\n" +
         "2. The S3 bucket name\n" +
         "3. Whether or not to delete existing data if it exists to prepare for a new database to be initialize\n" +
         "4. SSL enabled.\n" +
-        "5. Path style access.");
+        "5. Path style access.\n" +
+        "6. (Optional) Max S3 requests per second, defaults to $" + S3RateLimiter.MAX_REQUESTS_PER_SECOND_ENV + " or unlimited\n" +
+        "Pass an empty string or - for the optional argument to fall back to its environment variable.");
       System.exit(-1);
     }
     int i = 0;
@@ -47,7 +49,16 @@ public class PrepBucketForInit {
     String bucketName = args[i++];
     boolean forceDelete = Boolean.parseBoolean(args[i++]);
     boolean sslEnabled = Boolean.parseBoolean(args[i++]);
-    boolean pathStyleAccess = Boolean.parseBoolean(args[i]);
+    boolean pathStyleAccess = Boolean.parseBoolean(args[i++]);
+    String maxRequestsPerSecond = args.length > i ? args[i] : null;
+
+    S3RateLimiter rateLimiter = null;
+    try {
+      rateLimiter = S3RateLimiter.requestsFromArgsOrEnv(maxRequestsPerSecond);
+    } catch (IllegalArgumentException e) {
+      LOG.error(e.getMessage());
+      System.exit(-1);
+    }
 
     endpointUrl = addProtocol(endpointUrl, sslEnabled);
 
@@ -63,6 +74,7 @@ public class PrepBucketForInit {
       .standard()
       .withEndpointConfiguration(epc)
       .withPathStyleAccessEnabled(pathStyleAccess)
+      .withRequestHandlers(rateLimiter.requestHandler())
       .withCredentials(defaultAWSCredentialsProviderChain).build();
 
     Files.deleteIfExists(lockDir);
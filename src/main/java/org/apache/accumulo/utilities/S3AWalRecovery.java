@@ -8,6 +8,7 @@ package org.apache.accumulo.utilities;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.Inet4Address;
 import java.net.Socket;
 import java.net.UnknownHostException;
@@ -25,12 +26,15 @@ import org.slf4j.LoggerFactory;
 
 import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.internal.ResettableInputStream;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
 import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
 import com.amazonaws.services.s3.model.ListMultipartUploadsRequest;
 import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PutObjectRequest;
 import com.amazonaws.services.s3.model.UploadPartRequest;
 import com.amazonaws.util.AwsHostNameUtils;
 
@@ -47,6 +51,7 @@ public class S3AWalRecovery {
     private String accumuloS3WalPrefix;
     private File s3aBufferDir;
     private AmazonS3 s3client;
+    private S3RateLimiter rateLimiter;
 
     public static void main(String[] args) throws IOException {
         if(isRunning()) {
@@ -54,14 +59,17 @@ public class S3AWalRecovery {
                     "the tablet server's active processing.");
             System.exit(-1);
         }
-        if(args.length != 6) {
+        if(args.length < 6 || args.length > 8) {
             LOG.error("Invalid number of arguments. The recovery tool requires the following arguments in order:\n" +
                     "1. The S3 endpoint URL\n" +
                     "2. The S3 bucket name\n" +
                     "3. The s3a buffer directory (/tmp/hadoop-${user})\n" +
                     "4. The directory/prefix in S3 where write ahead logs are written to by accumulo (accumulo-wal/wal/)\n" +
                     "5. SSL enabled.\n" +
-                    "6. Path style access.");
+                    "6. Path style access.\n" +
+                    "7. (Optional) Max bytes uploaded per second, defaults to $" + S3RateLimiter.MAX_BYTES_PER_SECOND_ENV + " or unlimited\n" +
+                    "8. (Optional) Max S3 requests per second, defaults to $" + S3RateLimiter.MAX_REQUESTS_PER_SECOND_ENV + " or unlimited\n" +
+                    "Pass an empty string or - for an optional argument to fall back to its environment variable.");
             System.exit(-1);
         }
         int i = 0;
@@ -70,7 +78,17 @@ public class S3AWalRecovery {
         String s3aBufferDir = args[i++];
         String accumuloS3WalPrefix = args[i++];
         boolean sslEnabled = Boolean.parseBoolean(args[i++]);
-        boolean pathStyleAccess = Boolean.parseBoolean(args[i]);
+        boolean pathStyleAccess = Boolean.parseBoolean(args[i++]);
+        String maxBytesPerSecond = args.length > i ? args[i++] : null;
+        String maxRequestsPerSecond = args.length > i ? args[i] : null;
+
+        S3RateLimiter rateLimiter = null;
+        try {
+            rateLimiter = S3RateLimiter.fromArgsOrEnv(maxBytesPerSecond, maxRequestsPerSecond);
+        } catch (IllegalArgumentException e) {
+            LOG.error(e.getMessage());
+            System.exit(-1);
+        }
 
         DefaultAWSCredentialsProviderChain defaultAWSCredentialsProviderChain = new DefaultAWSCredentialsProviderChain();
         AwsClientBuilder.EndpointConfiguration epc = new AwsClientBuilder.EndpointConfiguration(endpointUrl, AwsHostNameUtils.parseRegion(endpointUrl, AmazonS3Client.S3_SERVICE_NAME));
@@ -84,13 +102,19 @@ public class S3AWalRecovery {
           .standard()
           .withEndpointConfiguration(epc)
           .withPathStyleAccessEnabled(pathStyleAccess)
+          .withRequestHandlers(rateLimiter.requestHandler())
           .withCredentials(defaultAWSCredentialsProviderChain).build();
 
-        new S3AWalRecovery(client, bucketName, s3aBufferDir, accumuloS3WalPrefix).run();
+        new S3AWalRecovery(client, bucketName, s3aBufferDir, accumuloS3WalPrefix, rateLimiter).run();
     }
 
     public S3AWalRecovery(AmazonS3 s3client, String bucketName, String s3aBufferDir, String accumuloS3WalPrefix) throws IOException {
-        if(s3client == null ||bucketName == null || s3aBufferDir == null || accumuloS3WalPrefix == null) {
+        this(s3client, bucketName, s3aBufferDir, accumuloS3WalPrefix, S3RateLimiter.unlimited());
+    }
+
+    public S3AWalRecovery(AmazonS3 s3client, String bucketName, String s3aBufferDir, String accumuloS3WalPrefix,
+                          S3RateLimiter rateLimiter) throws IOException {
+        if(s3client == null ||bucketName == null || s3aBufferDir == null || accumuloS3WalPrefix == null || rateLimiter == null) {
             throw new IOException("Illegal constructor argument. Null is not allowed for any arguments");
         }
 
@@ -102,6 +126,7 @@ public class S3AWalRecovery {
         this.s3client = s3client;
         this.bucketName = bucketName;
         this.accumuloS3WalPrefix = accumuloS3WalPrefix;
+        this.rateLimiter = rateLimiter;
     }
 
     public void run() {
@@ -162,7 +187,13 @@ public class S3AWalRecovery {
         if(key.startsWith(getWalPrefix())) {
             LOG.info("Buffered file [{}] matches write ahead log file [{}]. Putting the object directly since it's not part " +
                     "of a multipart upload", file, key);
-            s3client.putObject(bucketName, key, file);
+            ObjectMetadata metadata = new ObjectMetadata();
+            metadata.setContentLength(file.length());
+            // the SDK's file-backed stream can reset to any position on retry, so it isn't bound by the 128 KB mark
+            // limit the SDK puts on other streams. It's in the SDK's internal package, so recheck it on SDK upgrades.
+            try(InputStream in = new ResettableInputStream(file)) {
+                s3client.putObject(new PutObjectRequest(bucketName, key, rateLimiter.limit(in), metadata));
+            }
         } else if(key.endsWith(".rf_tmp")) {
             LOG.info("Buffered file [{}] matches a temporary r file [{}]. It looks like the tserver died during a compaction." +
                     " The manager will restart the compaction, so we'll delete the buffered file.", file, key);
@@ -188,13 +219,17 @@ public class S3AWalRecovery {
                     "of a multipart upload", file, key);
 
             int finalPartNumber = getPartNumberFromFile(file.getName());
-            UploadPartRequest upr = new UploadPartRequest()
-                    .withBucketName(bucketName)
-                    .withKey(key)
-                    .withFile(file)
-                    .withPartNumber(finalPartNumber)
-                    .withLastPart(true);
-            s3client.uploadPart(upr);
+            // see processPartOneFiles for why the SDK's file-backed resettable stream is used
+            try(InputStream in = new ResettableInputStream(file)) {
+                UploadPartRequest upr = new UploadPartRequest()
+                        .withBucketName(bucketName)
+                        .withKey(key)
+                        .withInputStream(rateLimiter.limit(in))
+                        .withPartSize(file.length())
+                        .withPartNumber(finalPartNumber)
+                        .withLastPart(true);
+                s3client.uploadPart(upr);
+            }
         } else if(key.endsWith(".rf_tmp")) {
             LOG.info("Buffered file [{}] matches a temporary r file [{}]. It looks like the tserver died during a compaction." +
                     " The manager will restart the compaction, so we'll abort the multi part upload and delete the buffered file.", file, key);
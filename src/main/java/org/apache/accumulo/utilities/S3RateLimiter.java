@@ -0,0 +1,228 @@
+/*
+ *
+ */
+/*
+ * Unlicensed
+ */
+package org.apache.accumulo.utilities;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.function.LongSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.amazonaws.AbortedException;
+import com.amazonaws.handlers.HandlerBeforeAttemptContext;
+import com.amazonaws.handlers.RequestHandler2;
+
+/**
+ * A token bucket limiter shared by every S3 call a utility makes within its process. It caps both the number of bytes
+ * uploaded per second and the number of requests issued per second so that the tools don't saturate the node's network
+ * link or the object store while live tservers are sharing them. Requests are metered by registering
+ * {@link #requestHandler()} on the S3 client, and upload bodies by wrapping them with {@link #limit(InputStream)}.
+ * A limit of zero disables that half of the limiter.
+ */
+public class S3RateLimiter {
+    private static final Logger LOG = LoggerFactory.getLogger(S3RateLimiter.class);
+    public static final String MAX_BYTES_PER_SECOND_ENV = "S3_MAX_BYTES_PER_SECOND";
+    public static final String MAX_REQUESTS_PER_SECOND_ENV = "S3_MAX_REQUESTS_PER_SECOND";
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+    // stream reads are capped to a tenth of a second of bytes so the body trickles out instead of stalling mid-upload
+    private static final int READ_SLICES_PER_SECOND = 10;
+
+    private final TokenBucket bytes;
+    private final TokenBucket requests;
+    private final Sleeper sleeper;
+    private final int maxReadSize;
+
+    public S3RateLimiter(long maxBytesPerSecond, long maxRequestsPerSecond) {
+        this(maxBytesPerSecond, maxRequestsPerSecond, System::nanoTime, Thread::sleep);
+    }
+
+    S3RateLimiter(long maxBytesPerSecond, long maxRequestsPerSecond, LongSupplier nanoClock, Sleeper sleeper) {
+        this.bytes = maxBytesPerSecond > 0 ? new TokenBucket(maxBytesPerSecond, nanoClock) : null;
+        this.requests = maxRequestsPerSecond > 0 ? new TokenBucket(maxRequestsPerSecond, nanoClock) : null;
+        this.sleeper = sleeper;
+        this.maxReadSize = (int) Math.max(1, Math.min(Integer.MAX_VALUE, maxBytesPerSecond / READ_SLICES_PER_SECOND));
+    }
+
+    public static S3RateLimiter unlimited() {
+        return new S3RateLimiter(0, 0);
+    }
+
+    /**
+     * Builds a limiter from the command line values, falling back to the {@value #MAX_BYTES_PER_SECOND_ENV} and
+     * {@value #MAX_REQUESTS_PER_SECOND_ENV} environment variables when a value isn't given on the command line.
+     * @param maxBytesPerSecond the command line byte limit, or null, empty or "-" if it wasn't given
+     * @param maxRequestsPerSecond the command line request limit, or null, empty or "-" if it wasn't given
+     * @return the configured limiter
+     * @throws IllegalArgumentException when a limit isn't a whole number of 0 or more
+     */
+    public static S3RateLimiter fromArgsOrEnv(String maxBytesPerSecond, String maxRequestsPerSecond) {
+        long maxBytes = parseLimit(argOrEnv(maxBytesPerSecond, MAX_BYTES_PER_SECOND_ENV));
+        long maxRequests = parseLimit(argOrEnv(maxRequestsPerSecond, MAX_REQUESTS_PER_SECOND_ENV));
+        LOG.info("Limiting S3 traffic to [{}] bytes per second and [{}] requests per second (0 is unlimited)", maxBytes, maxRequests);
+        return new S3RateLimiter(maxBytes, maxRequests);
+    }
+
+    /**
+     * Builds a limiter that only caps requests, for tools that never upload data. The limit falls back to the
+     * {@value #MAX_REQUESTS_PER_SECOND_ENV} environment variable when it isn't given on the command line.
+     * @param maxRequestsPerSecond the command line request limit, or null, empty or "-" if it wasn't given
+     * @return the configured limiter
+     * @throws IllegalArgumentException when the limit isn't a whole number of 0 or more
+     */
+    public static S3RateLimiter requestsFromArgsOrEnv(String maxRequestsPerSecond) {
+        long maxRequests = parseLimit(argOrEnv(maxRequestsPerSecond, MAX_REQUESTS_PER_SECOND_ENV));
+        LOG.info("Limiting S3 traffic to [{}] requests per second (0 is unlimited)", maxRequests);
+        return new S3RateLimiter(0, maxRequests);
+    }
+
+    protected static String argOrEnv(String arg, String envName) {
+        if(arg == null || arg.isBlank() || arg.trim().equals("-")) {
+            return System.getenv(envName);
+        }
+        return arg;
+    }
+
+    protected static long parseLimit(String value) {
+        if(value == null || value.isBlank()) {
+            return 0;
+        }
+        long limit;
+        try {
+            limit = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(String.format("Invalid rate limit [%s]. Expected a whole number", value), e);
+        }
+        if(limit < 0) {
+            throw new IllegalArgumentException(String.format("Invalid rate limit [%s]. Expected 0 (unlimited) or more", value));
+        }
+        return limit;
+    }
+
+    /**
+     * Blocks until the limiter allows another S3 request to be issued.
+     * @throws AbortedException when interrupted while waiting, which the SDK treats as an aborted request
+     */
+    public void acquireRequest() {
+        try {
+            acquire(requests, 1);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AbortedException("Interrupted while waiting on the S3 rate limiter", e);
+        }
+    }
+
+    /**
+     * A handler to register on the S3 client so every HTTP attempt, including the SDK's own retries, waits on the
+     * request limit.
+     * @return the request handler
+     */
+    public RequestHandler2 requestHandler() {
+        return new RequestHandler2() {
+            @Override
+            public void beforeAttempt(HandlerBeforeAttemptContext context) {
+                acquireRequest();
+            }
+        };
+    }
+
+    /**
+     * Blocks until the limiter allows the given number of bytes to be sent to S3.
+     * @param count the number of bytes about to be sent
+     * @throws InterruptedIOException when interrupted while waiting, since this is called while the SDK streams the body
+     */
+    public void acquireBytes(long count) throws InterruptedIOException {
+        try {
+            acquire(bytes, count);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            InterruptedIOException iioe = new InterruptedIOException("Interrupted while waiting on the S3 rate limiter");
+            iioe.initCause(e);
+            throw iioe;
+        }
+    }
+
+    /**
+     * Wraps an upload stream so the bytes are metered as the SDK reads them. Mark and reset are passed through so
+     * the SDK can still replay the stream on a retry, and replayed bytes are metered again since they are resent.
+     * Each read is capped to a tenth of a second of bytes so the socket never sits idle long enough to time out.
+     * @param in the stream the upload reads from
+     * @return a stream that blocks reads until the limiter allows the bytes that were read
+     */
+    public InputStream limit(InputStream in) {
+        if(bytes == null) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                int b = super.read();
+                if(b >= 0) {
+                    acquireBytes(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] buf, int off, int len) throws IOException {
+                int n = super.read(buf, off, Math.min(len, maxReadSize));
+                if(n > 0) {
+                    acquireBytes(n);
+                }
+                return n;
+            }
+        };
+    }
+
+    private void acquire(TokenBucket bucket, long permits) throws InterruptedException {
+        if(bucket == null || permits <= 0) {
+            return;
+        }
+        long waitNanos = bucket.reserve(permits);
+        if(waitNanos > 0) {
+            sleeper.sleep(waitNanos / 1_000_000L, (int) (waitNanos % 1_000_000L));
+        }
+    }
+
+    interface Sleeper {
+        void sleep(long millis, int nanos) throws InterruptedException;
+    }
+
+    /**
+     * Refills at a fixed rate up to one second of burst. Reservations larger than the available tokens put the
+     * bucket into debt, and the caller sleeps until the debt is repaid. Later callers queue behind that debt, so
+     * the limit holds across threads without sleeping while holding the lock.
+     */
+    private static class TokenBucket {
+        private final double tokensPerSecond;
+        private final double capacity;
+        private final LongSupplier nanoClock;
+        private double tokens;
+        private long lastRefill;
+
+        TokenBucket(long tokensPerSecond, LongSupplier nanoClock) {
+            this.tokensPerSecond = tokensPerSecond;
+            this.capacity = tokensPerSecond;
+            this.nanoClock = nanoClock;
+            this.tokens = capacity;
+            this.lastRefill = nanoClock.getAsLong();
+        }
+
+        synchronized long reserve(long permits) {
+            long now = nanoClock.getAsLong();
+            tokens = Math.min(capacity, tokens + (double) (now - lastRefill) * tokensPerSecond / NANOS_PER_SECOND);
+            lastRefill = now;
+            tokens -= permits;
+            if(tokens >= 0) {
+                return 0;
+            }
+            return (long) Math.ceil(-tokens * NANOS_PER_SECOND / tokensPerSecond);
+        }
+    }
+}
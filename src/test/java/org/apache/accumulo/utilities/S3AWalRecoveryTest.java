@@ -7,11 +7,11 @@
 package org.apache.accumulo.utilities;
 
 import static org.easymock.EasyMock.anyObject;
-import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThrows;
@@ -24,7 +24,10 @@ import java.net.UnknownHostException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.After;
 import org.junit.Before;
@@ -32,6 +35,8 @@ import org.junit.Test;
 
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.model.MultipartUpload;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
 
 public class S3AWalRecoveryTest {
     private static final String BUCKET_NAME = "bucket";
@@ -138,10 +143,13 @@ public class S3AWalRecoveryTest {
         client = EasyMock.createMock(AmazonS3.class);
         testFile = Path.of(BUFFER_DIR, WAL1_PART1_NAME).toFile();
         // expect the client to call putObject with the correct parameters
-        expect(client.putObject(eq(BUCKET_NAME), eq(WAL1_S3_KEY), eq(testFile))).andReturn(null);
+        Capture<PutObjectRequest> put1 = EasyMock.newCapture();
+        expect(client.putObject(EasyMock.capture(put1))).andReturn(null);
         replay(client);
         s3AWalRecovery = new S3AWalRecovery(client, BUCKET_NAME, BUFFER_DIR, WAL_PREFIX);
         s3AWalRecovery.processPartOneFiles(testFile);
+        assertEquals(BUCKET_NAME, put1.getValue().getBucketName());
+        assertEquals(WAL1_S3_KEY, put1.getValue().getKey());
         // expect the WAL1 file to have been deleted
         assertFalse(Files.exists(Path.of(BUFFER_DIR, WAL1_PART1_NAME)));
         verify(client);
@@ -150,10 +158,13 @@ public class S3AWalRecoveryTest {
         client = EasyMock.createMock(AmazonS3.class);
         testFile = Path.of(BUFFER_DIR, WAL2_PART1_NAME).toFile();
         // expect the client to call putObject with the correct parameters
-        expect(client.putObject(eq(BUCKET_NAME), eq(WAL2_S3_KEY), eq(testFile))).andReturn(null);
+        Capture<PutObjectRequest> put2 = EasyMock.newCapture();
+        expect(client.putObject(EasyMock.capture(put2))).andReturn(null);
         replay(client);
         s3AWalRecovery = new S3AWalRecovery(client, BUCKET_NAME, BUFFER_DIR, WAL_PREFIX);
         s3AWalRecovery.processPartOneFiles(testFile);
+        assertEquals(BUCKET_NAME, put2.getValue().getBucketName());
+        assertEquals(WAL2_S3_KEY, put2.getValue().getKey());
         // expect the WAL2 file to have been deleted
         assertFalse(Files.exists(Path.of(BUFFER_DIR, WAL2_PART1_NAME)));
         verify(client);
@@ -243,6 +254,68 @@ public class S3AWalRecoveryTest {
         verify(client);
     }
 
+    @Test
+    public void testUploadsAreRateLimited() throws IOException {
+        AtomicLong clock = new AtomicLong();
+        AtomicLong slept = new AtomicLong();
+        // 100 bytes per second, advancing a fake clock instead of sleeping. Requests are metered by the client's
+        // request handler, which the mock client bypasses, so that's covered in S3RateLimiterTest.
+        S3RateLimiter rateLimiter = new S3RateLimiter(100, 0, clock::get, (millis, nanos) -> {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(millis) + nanos;
+            slept.addAndGet(waitNanos);
+            clock.addAndGet(waitNanos);
+        });
+        byte[] walPart1 = new byte[300];
+        byte[] walPart2 = new byte[200];
+        for(int i = 0; i < walPart1.length; i++) {
+            walPart1[i] = (byte) i;
+        }
+        for(int i = 0; i < walPart2.length; i++) {
+            walPart2[i] = (byte) (i + 7);
+        }
+        File walPart1File = Path.of(BUFFER_DIR, WAL1_PART1_NAME).toFile();
+        File walPart2File = Path.of(BUFFER_DIR, WAL1_PART2_NAME).toFile();
+        Files.write(walPart1File.toPath(), walPart1);
+        Files.write(walPart2File.toPath(), walPart2);
+
+        AmazonS3 client = EasyMock.createMock(AmazonS3.class);
+        // the SDK reads the body while the call is in flight, so read the stream from inside the mock
+        expect(client.putObject(anyObject(PutObjectRequest.class))).andAnswer(() -> {
+            PutObjectRequest put = (PutObjectRequest) EasyMock.getCurrentArguments()[0];
+            assertEquals(0, slept.get());
+            assertEquals(WAL1_S3_KEY, put.getKey());
+            assertEquals(walPart1.length, put.getMetadata().getContentLength());
+            assertArrayEquals(walPart1, put.getInputStream().readAllBytes());
+            // 300 bytes against a 100 byte burst waits two seconds
+            assertEquals(TimeUnit.SECONDS.toNanos(2), slept.get());
+            return null;
+        });
+        expect(client.uploadPart(anyObject(UploadPartRequest.class))).andAnswer(() -> {
+            UploadPartRequest upr = (UploadPartRequest) EasyMock.getCurrentArguments()[0];
+            assertEquals(WAL1_S3_KEY, upr.getKey());
+            assertEquals(2, upr.getPartNumber());
+            assertEquals(walPart2.length, upr.getPartSize());
+            assertArrayEquals(walPart2, upr.getInputStream().readAllBytes());
+            // the byte bucket was emptied by the put, so 200 bytes waits two more seconds
+            assertEquals(TimeUnit.SECONDS.toNanos(4), slept.get());
+            return null;
+        });
+        MultipartUpload walMpu = EasyMock.createMock(MultipartUpload.class);
+        expect(walMpu.getKey()).andReturn(WAL1_S3_KEY);
+        expect(walMpu.getUploadId()).andReturn(MOCK_UPLOAD_ID);
+        replay(client, walMpu);
+
+        S3AWalRecovery s3AWalRecovery = new S3AWalRecovery(client, BUCKET_NAME, BUFFER_DIR, WAL_PREFIX, rateLimiter);
+        s3AWalRecovery.processPartOneFiles(walPart1File);
+        s3AWalRecovery.processMultipartUploads(walPart2File, walMpu);
+        assertEquals(TimeUnit.SECONDS.toNanos(4), slept.get());
+
+        // expect the uploaded files to have been deleted locally
+        assertFalse(walPart1File.exists());
+        assertFalse(walPart2File.exists());
+        verify(client, walMpu);
+    }
+
     @Before
     public void generateTestFiles() throws IOException {
         Files.createFile(Path.of(BUFFER_DIR, WAL1_PART1_NAME));
@@ -0,0 +1,180 @@
+/*
+ *
+ */
+/*
+ * Unlicensed
+ */
+package org.apache.accumulo.utilities;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThrows;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.amazonaws.ClientConfiguration;
+import com.amazonaws.SdkClientException;
+import com.amazonaws.auth.AWSStaticCredentialsProvider;
+import com.amazonaws.auth.BasicAWSCredentials;
+import com.amazonaws.client.builder.AwsClientBuilder;
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.AmazonS3ClientBuilder;
+
+public class S3RateLimiterTest {
+    private AtomicLong clock;
+    private AtomicLong slept;
+    private S3RateLimiter.Sleeper sleeper;
+
+    @Before
+    public void setup() {
+        clock = new AtomicLong();
+        slept = new AtomicLong();
+        // advance the fake clock instead of actually sleeping
+        sleeper = (millis, nanos) -> {
+            long waitNanos = TimeUnit.MILLISECONDS.toNanos(millis) + nanos;
+            slept.addAndGet(waitNanos);
+            clock.addAndGet(waitNanos);
+        };
+    }
+
+    @Test
+    public void testRequestsAreLimited() {
+        S3RateLimiter limiter = new S3RateLimiter(0, 10, clock::get, sleeper);
+
+        // the first second's worth of requests is allowed as a burst
+        for(int i = 0; i < 10; i++) {
+            limiter.acquireRequest();
+        }
+        assertEquals(0, slept.get());
+
+        // after the burst each request waits for a tenth of a second
+        limiter.acquireRequest();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(100), slept.get());
+        limiter.acquireRequest();
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(200), slept.get());
+    }
+
+    @Test
+    public void testRequestHandlerMetersEveryRetry() {
+        S3RateLimiter limiter = new S3RateLimiter(0, 1, clock::get, sleeper);
+        // nothing listens on port 1, so every attempt fails to connect and the SDK retries it twice
+        AmazonS3 client = AmazonS3ClientBuilder
+          .standard()
+          .withEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration("http://127.0.0.1:1", "us-east-1"))
+          .withPathStyleAccessEnabled(true)
+          .withClientConfiguration(new ClientConfiguration().withMaxErrorRetry(2))
+          .withRequestHandlers(limiter.requestHandler())
+          .withCredentials(new AWSStaticCredentialsProvider(new BasicAWSCredentials("access", "secret"))).build();
+
+        assertThrows(SdkClientException.class, () -> client.listObjectsV2("bucket"));
+        // the first attempt uses the burst and each of the two retries waits a second
+        assertEquals(TimeUnit.SECONDS.toNanos(2), slept.get());
+        client.shutdown();
+    }
+
+    @Test
+    public void testBytesAreLimited() throws IOException {
+        S3RateLimiter limiter = new S3RateLimiter(1000, 0, clock::get, sleeper);
+
+        limiter.acquireBytes(1000);
+        assertEquals(0, slept.get());
+
+        // a reservation larger than the bucket puts it into debt and waits for it to be repaid
+        limiter.acquireBytes(2500);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2500), slept.get());
+
+        // idle time refills the bucket, but never beyond one second of burst
+        clock.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        limiter.acquireBytes(1000);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(2500), slept.get());
+        limiter.acquireBytes(500);
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(3000), slept.get());
+    }
+
+    @Test
+    public void testLimitedStreamMetersBytesRead() throws IOException {
+        S3RateLimiter limiter = new S3RateLimiter(100, 0, clock::get, sleeper);
+
+        try(InputStream in = limiter.limit(new ByteArrayInputStream(new byte[300]))) {
+            byte[] buf = new byte[300];
+            int total = 0;
+            int n;
+            while((n = in.read(buf, total, buf.length - total)) > 0) {
+                total += n;
+            }
+            assertEquals(300, total);
+            assertEquals(-1, in.read());
+        }
+        assertEquals(TimeUnit.SECONDS.toNanos(2), slept.get());
+    }
+
+    @Test
+    public void testLimitedStreamReadsSmallSlices() throws IOException {
+        S3RateLimiter limiter = new S3RateLimiter(100, 0, clock::get, sleeper);
+
+        // each read is capped to a tenth of a second of bytes so the upload doesn't stall on one long sleep
+        try(InputStream in = limiter.limit(new ByteArrayInputStream(new byte[300]))) {
+            assertEquals(10, in.read(new byte[300], 0, 300));
+        }
+        assertEquals(1, new S3RateLimiter(5, 0, clock::get, sleeper)
+                .limit(new ByteArrayInputStream(new byte[300])).read(new byte[300], 0, 300));
+    }
+
+    @Test
+    public void testInterruptedStreamReadThrowsInterruptedIOException() throws IOException {
+        S3RateLimiter limiter = new S3RateLimiter(100, 0, clock::get, (millis, nanos) -> {
+            throw new InterruptedException();
+        });
+
+        try(InputStream in = limiter.limit(new ByteArrayInputStream(new byte[300]))) {
+            // the first reads fit in the burst, so keep reading until one has to wait
+            assertThrows(InterruptedIOException.class, () -> {
+                while(in.read(new byte[300], 0, 300) > 0) {
+                }
+            });
+        }
+        // the interrupt flag is restored for the caller, clearing it so it doesn't leak into other tests
+        assertTrue(Thread.interrupted());
+    }
+
+    @Test
+    public void testUnlimited() throws IOException {
+        S3RateLimiter limiter = new S3RateLimiter(0, 0, clock::get, sleeper);
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+
+        for(int i = 0; i < 1000; i++) {
+            limiter.acquireRequest();
+            limiter.acquireBytes(Long.MAX_VALUE);
+        }
+        assertEquals(0, slept.get());
+        assertSame(in, limiter.limit(in));
+    }
+
+    @Test
+    public void testParseLimit() {
+        assertEquals(0, S3RateLimiter.parseLimit(null));
+        assertEquals(0, S3RateLimiter.parseLimit(" "));
+        assertEquals(1048576, S3RateLimiter.parseLimit(" 1048576 "));
+        assertThrows(IllegalArgumentException.class, () -> S3RateLimiter.parseLimit("10MB"));
+        assertThrows(IllegalArgumentException.class, () -> S3RateLimiter.parseLimit("-1"));
+    }
+
+    @Test
+    public void testArgOrEnv() {
+        String unsetEnv = "S3_RATE_LIMITER_TEST_UNSET_ENV";
+        assertEquals("5", S3RateLimiter.argOrEnv("5", unsetEnv));
+        assertNull(S3RateLimiter.argOrEnv(null, unsetEnv));
+        assertNull(S3RateLimiter.argOrEnv("", unsetEnv));
+        assertNull(S3RateLimiter.argOrEnv("-", unsetEnv));
+    }
+}